@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
 
 import org.apache.commons.lang3.NotImplementedException;
 
@@ -28,17 +29,46 @@ public abstract class ExecutionEngine {
     }
 
     private void compileFile(File file, Scanner in) {
+        compileFile(file, readLines(in));
+    }
+
+    private static List<String> readLines(Scanner in) {
         List<String> lines = new ArrayList<>();
         while (in.hasNextLine()) {
             lines.add(in.nextLine());
         }
-        compileFile(file, lines);
+        return lines;
     }
 
     public void compileFile(File file, List<String> lines) {
         throw new NotImplementedException("implement this, or override the other compile methods");
     }
 
+    // Returns all functions compiled from the file, or null if the engine can only look them up with
+    // resolveFunction(). Used to index functions by line when verifying breakpoints.
+    public List<? extends IFunction> getFunctions(File file) {
+        return null;
+    }
+
+    public List<IFunction> recompileFile(File file, Set<IFunction> activeFunctions) {
+        try (Scanner in = new Scanner(file)) {
+            return recompileFile(file, readLines(in), activeFunctions);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Recompiles a single file in a live session, swapping in the new bodies of any functions that aren't in
+    // activeFunctions. Returns the functions that kept their old bodies because they are on the call stack.
+    public List<IFunction> recompileFile(File file, List<String> lines, Set<IFunction> activeFunctions) {
+        throw new NotImplementedException("hot code replace is not supported by this execution engine");
+    }
+
+    // The entry point passed to startThread() for a program
+    public String getEntryPoint(File file) {
+        return file.getName().endsWith(".s") ? "main" : "Main.main";
+    }
+
     public boolean isInternalFile(File file) {
         return false;
     }
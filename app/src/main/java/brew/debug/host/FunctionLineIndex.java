@@ -0,0 +1,65 @@
+package brew.debug.host;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+// Finds the innermost function containing a line. Functions may be nested and may start on the same line.
+// A lookup is a binary search for the nearest function starting on or before the line, then a walk up its enclosing
+// functions, so it costs O(log n + nesting depth) however many siblings a function has.
+class FunctionLineIndex {
+    // Sorted by first line, and outermost first among functions that start on the same line
+    private IFunction[] functions;
+    private int[] firstLines;
+    private int[] lastLines;
+    // Index of the nearest enclosing function, or -1
+    private int[] parents;
+
+    FunctionLineIndex(List<? extends IFunction> functionList) {
+        List<IFunction> sorted = new ArrayList<>(functionList);
+        sorted.sort(Comparator.comparingInt(IFunction::getFirstSourceLine)
+                .thenComparing(Comparator.comparingInt(IFunction::getLastSourceLine).reversed()));
+
+        int count = sorted.size();
+        functions = sorted.toArray(new IFunction[0]);
+        firstLines = new int[count];
+        lastLines = new int[count];
+        parents = new int[count];
+
+        Deque<Integer> enclosing = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) {
+            firstLines[i] = functions[i].getFirstSourceLine();
+            lastLines[i] = functions[i].getLastSourceLine();
+            while (!enclosing.isEmpty() && lastLines[enclosing.peek()] < firstLines[i]) {
+                enclosing.pop();
+            }
+            parents[i] = enclosing.isEmpty() ? -1 : enclosing.peek();
+            enclosing.push(i);
+        }
+    }
+
+    IFunction resolveFunction(int lineNumber) {
+        // The last function starting on or before the line; any function containing the line encloses it
+        int low = 0;
+        int high = firstLines.length - 1;
+        int nearest = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (firstLines[mid] <= lineNumber) {
+                nearest = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        for (int i = nearest; i != -1; i = parents[i]) {
+            if (lineNumber <= lastLines[i]) {
+                return functions[i];
+            }
+        }
+        return null;
+    }
+}
@@ -1,13 +1,17 @@
 package brew.debug.host;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
 
 import com.microsoft.java.debug.core.protocol.Events.OutputEvent.Category;
 import com.microsoft.java.debug.core.protocol.Requests.DisassembleArguments;
@@ -26,6 +30,8 @@ import com.microsoft.java.debug.core.protocol.Types.Variable;
 
 import brew.debug.host.debughost.DebugAdapter;
 import brew.debug.host.debughost.IVMDebugAdapter;
+import brew.debug.host.trace.TraceDecoder;
+import brew.debug.host.trace.TraceRecorder;
 
 public class HostThread extends Thread {
     private enum State {
@@ -36,6 +42,10 @@ public class HostThread extends Thread {
     }
 
     private static final int NO_STOP_FRAME = -1;
+    // Number of trace entries shown with a VM error
+    private static final int ERROR_TRACE_LINES = 20;
+    // Instructions a pending pause waits in internal code for the program to get back to a user file
+    private static final int PAUSE_INSTRUCTION_LIMIT = 100_000;
 
     public static String formatAddress(int address) {
         return String.format("0x%08x", address);
@@ -47,11 +57,29 @@ public class HostThread extends Thread {
     private IThread thread;
     private volatile State state;
     private volatile SteppingGranularity steppingGranularity;
+    // Set from the debug adapter without taking the lock, which the run loop holds while the program runs. Cleared
+    // on resume, since a pause that arrives while the program is already stopped has nothing to do.
+    private volatile boolean pauseRequested;
+    private volatile boolean terminateRequested;
+    // Instructions run in internal code since a pause was requested
+    private int pauseInstructions;
+    // Breakpoint changes requested while the program runs. The run loop applies them before its next step and
+    // reports the breakpoints that changed.
+    private Queue<Supplier<List<Breakpoint>>> pendingBreakpointChanges = new ConcurrentLinkedQueue<>();
     private Map<File, Map<Integer, Breakpoint>> breakpointsByFile = new HashMap<>();
+    private Map<File, FunctionLineIndex> functionIndexesByFile = new HashMap<>();
+    private Map<IFunction, Map<String, IExpression>> expressionsByFunction = new HashMap<>();
+    private Map<Integer, Map<String, Variable>> evaluationResultsByFrame = new HashMap<>();
+    // Incremented on every stop, which invalidates evaluationResultsByFrame
+    private volatile int stopGeneration;
+    private int evaluationResultsGeneration;
     private Set<Integer> instructionBreakpoints = new HashSet<>();
     private int maxStopFrame;
     private int nextBreakpointId;
     private boolean stopOnEntry;
+    private TraceRecorder traceRecorder;
+    // Created on the first dump if the launch didn't name one
+    private File traceFile;
 
     public HostThread(IVMDebugAdapter da, ExecutionEngine executionEngine) {
         this.da = da;
@@ -64,8 +92,19 @@ public class HostThread extends Thread {
         stopOnEntry = true;
     }
 
+    // traceFile may be null for a new temp file. Throws IllegalArgumentException for a bad capacity.
+    public void enableTrace(int capacity, File traceFile) {
+        traceRecorder = new TraceRecorder(capacity);
+        this.traceFile = traceFile;
+    }
+
+    public boolean isTracing() {
+        return traceRecorder != null;
+    }
+
     public void compileCode(File file) {
         executionEngine.compileFile(file);
+        functionIndexesByFile.clear();
         this.file = file;
     }
 
@@ -76,45 +115,98 @@ public class HostThread extends Thread {
     public void verifyBreakpoints() {
         List<Breakpoint> updatedBreakpoints = new ArrayList<>();
         for (var entry : breakpointsByFile.entrySet()) {
-            File file = entry.getKey();
-            var breakpointsByLine = entry.getValue();
-
-            List<Breakpoint> movedBreakpoints = new ArrayList<>();
-            for (var iter = breakpointsByLine.values().iterator(); iter.hasNext();) {
-                Breakpoint br = iter.next();
-                IFunction function;
-                try {
-                    function = executionEngine.resolveFunction(file, br.line - 1);
-                } catch (Exception e) {
-                    function = null;
-                }
-                if (function == null) {
-                    if (br.verified) {
-                        br.verified = false;
-                        updatedBreakpoints.add(br);
-                        iter.remove();
-                    }
-                    continue;
-                }
+            verifyBreakpoints(entry.getKey(), entry.getValue(), updatedBreakpoints);
+        }
+
+        if (!updatedBreakpoints.isEmpty()) {
+            da.breakpointsUpdated(updatedBreakpoints);
+        }
+    }
+
+    // Verifies the breakpoints in one file and returns the ones that changed, without notifying the debug adapter.
+    // Callers hold the lock.
+    private List<Breakpoint> verifyFileBreakpoints(File file) {
+        List<Breakpoint> updatedBreakpoints = new ArrayList<>();
+        var breakpointsByLine = breakpointsByFile.get(file);
+        if (breakpointsByLine != null) {
+            verifyBreakpoints(file, breakpointsByLine, updatedBreakpoints);
+        }
+        return updatedBreakpoints;
+    }
 
-                int oldLine = br.line;
-                if (function.updateBreakpoint(br)) {
+    private void verifyBreakpoints(File file, Map<Integer, Breakpoint> breakpointsByLine,
+            List<Breakpoint> updatedBreakpoints) {
+        List<Breakpoint> movedBreakpoints = new ArrayList<>();
+        for (var iter = breakpointsByLine.values().iterator(); iter.hasNext();) {
+            Breakpoint br = iter.next();
+            IFunction function = resolveFunction(file, br.line - 1);
+            if (function == null) {
+                if (br.verified) {
+                    br.verified = false;
                     updatedBreakpoints.add(br);
-                    if (!br.verified) {
-                        iter.remove();
-                    }
-                    if (br.line != oldLine) {
-                        movedBreakpoints.add(br);
-                    }
+                    iter.remove();
                 }
+                continue;
             }
 
-            for (Breakpoint br : movedBreakpoints) {
-                // TODO: Is old entry still on old line?
-                breakpointsByLine.put(br.line, br);
+            int oldLine = br.line;
+            if (function.updateBreakpoint(br)) {
+                updatedBreakpoints.add(br);
+                if (!br.verified) {
+                    iter.remove();
+                }
+                if (br.line != oldLine) {
+                    movedBreakpoints.add(br);
+                }
             }
         }
 
+        for (Breakpoint br : movedBreakpoints) {
+            // TODO: Is old entry still on old line?
+            breakpointsByLine.put(br.line, br);
+        }
+    }
+
+    private IFunction resolveFunction(File file, int lineNumber) {
+        if (!functionIndexesByFile.containsKey(file)) {
+            // Engines that can't list functions or give their line ranges fall back to resolveFunction()
+            FunctionLineIndex index;
+            try {
+                List<? extends IFunction> functions = executionEngine.getFunctions(file);
+                index = functions == null ? null : new FunctionLineIndex(functions);
+            } catch (Exception e) {
+                index = null;
+            }
+            functionIndexesByFile.put(file, index);
+        }
+
+        FunctionLineIndex index = functionIndexesByFile.get(file);
+        if (index != null) {
+            return index.resolveFunction(lineNumber);
+        }
+
+        try {
+            return executionEngine.resolveFunction(file, lineNumber);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public synchronized void hotCodeReplace(File changedFile) {
+        Set<IFunction> activeFunctions = new HashSet<>();
+        for (IStackFrame frame : thread.getDebugCallStack()) {
+            activeFunctions.add(frame.getFunction());
+        }
+
+        List<IFunction> staleFunctions = executionEngine.recompileFile(changedFile, activeFunctions);
+        functionIndexesByFile.remove(changedFile);
+        expressionsByFunction.clear();
+        for (IFunction function : staleFunctions) {
+            da.output(Category.console, "Function " + function.getDisplayName()
+                    + " is on the call stack and will run its old code until it returns\n");
+        }
+
+        List<Breakpoint> updatedBreakpoints = verifyFileBreakpoints(changedFile);
         if (!updatedBreakpoints.isEmpty()) {
             da.breakpointsUpdated(updatedBreakpoints);
         }
@@ -125,27 +217,38 @@ public class HostThread extends Thread {
         // TODO: List breakpoints, enable/disable, etc.
         // TODO: Hover for var value - what about other stack frames?
         // TODO: Handle errors - no function def, for example
-        String entryPoint = file.getName().endsWith(".s") ? "main" : "Main.main";
-        thread = executionEngine.startThread(file, entryPoint, msg -> da.output(Category.stdout, msg + "\n"));
-        if (stopOnEntry) {
-            stop("entry");
-        } else {
-            stopIfNecessary();
-        }
-
         synchronized (this) {
+            thread = executionEngine.startThread(file, executionEngine.getEntryPoint(file),
+                    msg -> da.output(Category.stdout, msg + "\n"));
+            applyPendingBreakpointChanges();
+            if (stopOnEntry) {
+                stop("entry");
+            } else {
+                stopIfNecessary();
+            }
+
             while (true) {
+                if (terminateRequested) {
+                    state = State.Terminated;
+                    return;
+                }
+                applyPendingBreakpointChanges();
                 switch (state) {
                     case Running:
                     case Stepping:
-                        // TODO: Break tight loop
                         try {
+                            if (traceRecorder != null) {
+                                traceRecorder.record(thread.getDebugCallStack());
+                            }
                             if (!thread.step()) {
                                 da.exited();
                                 return;
                             }
                         } catch (VMException e) {
                             da.output(Category.stderr, e.getMessage());
+                            if (traceRecorder != null) {
+                                outputErrorTrace();
+                            }
                             da.exited();
                             return;
                         } catch (Exception e) {
@@ -160,7 +263,7 @@ public class HostThread extends Thread {
                         try {
                             wait(1000);
                         } catch (InterruptedException e) {
-                            // Expected
+                            // Expected when terminating
                         }
                         break;
                     case Terminated:
@@ -170,13 +273,75 @@ public class HostThread extends Thread {
         }
     }
 
+    // Applies a breakpoint change straight away if the run loop isn't holding the lock, which it does while the
+    // program runs; otherwise queues it for the loop's next step, so the debug adapter's thread never waits for the
+    // program. Changes are only started from that thread, and only it resumes the program, so a program that's
+    // stopped stays stopped until the change is applied.
+    private void applyBreakpointChange(Supplier<List<Breakpoint>> change) {
+        if (isAlive() && !isSuspended()) {
+            pendingBreakpointChanges.add(change);
+            return;
+        }
+
+        synchronized (this) {
+            // Queued changes were requested first
+            applyPendingBreakpointChanges();
+            change.get();
+        }
+    }
+
+    // The requests for queued changes have been answered already, so the changed breakpoints are sent as events
+    private void applyPendingBreakpointChanges() {
+        List<Breakpoint> updatedBreakpoints = new ArrayList<>();
+        Supplier<List<Breakpoint>> change;
+        while ((change = pendingBreakpointChanges.poll()) != null) {
+            updatedBreakpoints.addAll(change.get());
+        }
+
+        if (!updatedBreakpoints.isEmpty()) {
+            da.breakpointsUpdated(updatedBreakpoints);
+        }
+    }
+
+    private void outputErrorTrace() {
+        try {
+            List<String> lines = dumpTrace();
+            StringBuilder msg = new StringBuilder("\nLast instructions (full trace in " + traceFile + "):\n");
+            for (String line : lines.subList(Math.max(0, lines.size() - ERROR_TRACE_LINES), lines.size())) {
+                msg.append(line).append('\n');
+            }
+            da.output(Category.stderr, msg.toString());
+        } catch (IOException e) {
+            da.output(Category.stderr, "Can't write trace: " + DebugAdapter.getStackTrace(e));
+        }
+    }
+
+    // Writes the trace file and returns its decoded entries, oldest first
+    public synchronized List<String> dumpTrace() throws IOException {
+        if (traceFile == null) {
+            traceFile = createTraceFile();
+        }
+        traceRecorder.dump(traceFile);
+        return TraceDecoder.decode(traceFile);
+    }
+
+    // Unique per process and session, since several hosts may share the temp directory
+    private static File createTraceFile() throws IOException {
+        return File.createTempFile("brew-trace-" + ProcessHandle.current().pid() + "-", ".bin");
+    }
+
+    public File getTraceFile() {
+        return traceFile;
+    }
+
     private void stopIfNecessary() {
         Stack<? extends IStackFrame> callStack = thread.getDebugCallStack();
         IStackFrame frame = callStack.peek();
         IFunction function = frame.getFunction();
         File filename = function.getFile();
 
-        if (!executionEngine.isInternalFile(filename)) {
+        boolean internal = executionEngine.isInternalFile(filename);
+        if (!internal) {
             if (breakpointsByFile
                     .computeIfAbsent(filename, k -> new HashMap<>())
                     .get(function.getSourceLine(frame.getProgramCounter())) != null &&
@@ -194,15 +359,27 @@ public class HostThread extends Thread {
                 }
             }
         }
+
+        // Like breakpoints and steps, a pause waits until the program is back in a user file, but a program that
+        // stays in internal code is stopped there after PAUSE_INSTRUCTION_LIMIT instructions
+        if (pauseRequested && state != State.Suspended) {
+            if (!internal || ++pauseInstructions >= PAUSE_INSTRUCTION_LIMIT) {
+                stop("pause");
+            }
+        }
     }
 
     private void stop(String reason) {
+        stopGeneration++;
         state = State.Suspended;
         maxStopFrame = NO_STOP_FRAME;
+        pauseRequested = false;
+        pauseInstructions = 0;
         da.stopped(reason);
     }
 
     public synchronized void next(SteppingGranularity granularity) {
+        pauseRequested = false;
         state = State.Stepping;
         steppingGranularity = granularity;
         maxStopFrame = thread.getDebugCallStack().size();
@@ -210,38 +387,53 @@ public class HostThread extends Thread {
     }
 
     public synchronized void stepIn(SteppingGranularity granularity) {
+        pauseRequested = false;
         state = State.Stepping;
         steppingGranularity = granularity;
         notify();
     }
 
     public synchronized void stepOut(SteppingGranularity granularity) {
+        pauseRequested = false;
         state = State.Stepping;
         steppingGranularity = granularity;
         maxStopFrame = thread.getDebugCallStack().size() - 1;
         notify();
     }
 
+    public void pause() {
+        pauseRequested = true;
+    }
+
     public synchronized void continueExecution() {
+        pauseRequested = false;
         state = State.Running;
         notify();
     }
 
-    public synchronized List<Breakpoint> setBreakpoints(SetBreakpointArguments sba) {
-        var breakpointsByLine = breakpointsByFile.computeIfAbsent(new File(sba.source.path), k -> new HashMap<>());
-        breakpointsByLine.clear();
-
+    // Replaces a file's breakpoints. With verify, they're checked against the compiled code, and the returned
+    // breakpoints carry their verified state; if the program is running, they're verified before its next step and
+    // reported with breakpoint events instead.
+    public List<Breakpoint> setBreakpoints(SetBreakpointArguments sba, boolean verify) {
+        File file = new File(sba.source.path);
+        Map<Integer, Breakpoint> breakpointsByLine = new HashMap<>();
         List<Breakpoint> bpResults = new ArrayList<>();
         for (SourceBreakpoint sbp : sba.breakpoints) {
             Breakpoint bp = new Breakpoint(nextBreakpointId++, false, sbp.line, null);
             breakpointsByLine.put(bp.line, bp);
             bpResults.add(bp);
         }
+
+        applyBreakpointChange(() -> {
+            breakpointsByFile.put(file, breakpointsByLine);
+            return verify ? verifyFileBreakpoints(file) : List.of();
+        });
         return bpResults;
     }
 
-    public synchronized List<Breakpoint> setInstructionBreakpoints(InstructionBreakpoint[] breakpoints) {
-        instructionBreakpoints.clear();
+    // Instruction breakpoints are always verified, so there's nothing to report if they're set while running
+    public List<Breakpoint> setInstructionBreakpoints(InstructionBreakpoint[] breakpoints) {
+        Set<Integer> addresses = new HashSet<>();
         List<Breakpoint> responseBreakpoints = new ArrayList<>();
 
         for (InstructionBreakpoint ib : breakpoints) {
@@ -251,11 +443,16 @@ public class HostThread extends Thread {
             }
 
             int address = Integer.parseInt(ib.instructionReference.substring(2), 16) + ib.offset;
-            instructionBreakpoints.add(address);
+            addresses.add(address);
 
             Breakpoint bp = new Breakpoint(address, true, ib.instructionReference, ib.offset);
             responseBreakpoints.add(bp);
         }
+
+        applyBreakpointChange(() -> {
+            instructionBreakpoints = addresses;
+            return List.of();
+        });
         return responseBreakpoints;
     }
 
@@ -275,25 +472,70 @@ public class HostThread extends Thread {
         return thread.disassembleInstructions(dis);
     }
 
+    public boolean isSuspended() {
+        return state == State.Suspended;
+    }
+
+    // Frame ids are the ones handed out by DebugAdapter.getStackFrames(), or 0 for the top frame. Only hover and
+    // watch expressions, which are re-evaluated at every stop, are cached. Other contexts such as the REPL may have
+    // side effects, so they always run, and their expressions are compiled every time rather than kept forever.
+    public synchronized Variable evaluate(int frameId, String expression, String context) {
+        if (evaluationResultsGeneration != stopGeneration) {
+            evaluationResultsByFrame.clear();
+            evaluationResultsGeneration = stopGeneration;
+        }
+
+        boolean cacheable = "hover".equals(context) || "watch".equals(context);
+        var resultsByExpression = evaluationResultsByFrame.computeIfAbsent(frameId, k -> new HashMap<>());
+        Variable result = cacheable ? resultsByExpression.get(expression) : null;
+        if (result != null) {
+            return result;
+        }
+
+        Stack<? extends IStackFrame> callStack = thread.getDebugCallStack();
+        IStackFrame frame = frameId == 0 ? callStack.peek() : callStack.get(frameId - 1);
+        IFunction function = frame.getFunction();
+        IExpression compiled = cacheable
+                ? expressionsByFunction
+                        .computeIfAbsent(function, k -> new HashMap<>())
+                        .computeIfAbsent(expression, k -> thread.compileExpression(function, expression))
+                : thread.compileExpression(function, expression);
+
+        result = compiled.evaluate(frame);
+        if (cacheable) {
+            resultsByExpression.put(expression, result);
+        } else {
+            // The evaluation may have changed memory that cached results were read from
+            evaluationResultsByFrame.clear();
+        }
+        return result;
+    }
+
     public ReadMemoryResponse readMemory(ReadMemoryArguments rma) {
         return thread.readMemory(rma);
     }
 
-    public WriteMemoryResponse writeMemory(WriteMemoryArguments wma) {
+    // Like evaluate(), this takes the lock that guards the evaluation caches. It's only called while suspended, when
+    // the run loop isn't holding it.
+    public synchronized WriteMemoryResponse writeMemory(WriteMemoryArguments wma) {
+        evaluationResultsByFrame.clear();
         return thread.writeMemory(wma);
     }
 
-    public synchronized void terminate() {
-        state = State.Terminated;
-        notify();
+    // Doesn't take the lock, which the run loop holds while the program runs. The loop checks the request before
+    // every step, and the interrupt wakes it if it's waiting at a stop.
+    public void terminate() {
+        terminateRequested = true;
+        interrupt();
         try {
             join();
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
+        state = State.Terminated;
     }
 
-    public synchronized boolean hasTerminated() {
-        return state == State.Terminated;
+    public boolean hasTerminated() {
+        return terminateRequested || state == State.Terminated;
     }
 }
@@ -0,0 +1,7 @@
+package brew.debug.host;
+
+import com.microsoft.java.debug.core.protocol.Types.Variable;
+
+public interface IExpression {
+    Variable evaluate(IStackFrame frame);
+}
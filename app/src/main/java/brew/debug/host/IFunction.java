@@ -2,6 +2,8 @@ package brew.debug.host;
 
 import java.io.File;
 
+import org.apache.commons.lang3.NotImplementedException;
+
 import com.microsoft.java.debug.core.protocol.Types.Breakpoint;
 
 public interface IFunction {
@@ -13,4 +15,14 @@ public interface IFunction {
     int getSourceLine(int functionLine);
 
     boolean updateBreakpoint(Breakpoint bp);
+
+    // First and last source lines of the function, numbered like ExecutionEngine.resolveFunction(). Required if
+    // the engine implements ExecutionEngine.getFunctions().
+    default int getFirstSourceLine() {
+        throw new NotImplementedException("implement this to support ExecutionEngine.getFunctions()");
+    }
+
+    default int getLastSourceLine() {
+        throw new NotImplementedException("implement this to support ExecutionEngine.getFunctions()");
+    }
 }
@@ -3,6 +3,8 @@ package brew.debug.host;
 import java.util.List;
 import java.util.Stack;
 
+import org.apache.commons.lang3.NotImplementedException;
+
 import com.microsoft.java.debug.core.protocol.Requests.DisassembleArguments;
 import com.microsoft.java.debug.core.protocol.Requests.DisassembledInstruction;
 import com.microsoft.java.debug.core.protocol.Requests.ReadMemoryArguments;
@@ -28,4 +30,10 @@ public interface IThread {
     ReadMemoryResponse readMemory(ReadMemoryArguments rma);
 
     WriteMemoryResponse writeMemory(WriteMemoryArguments wma);
+
+    // Parses an expression in the scope of a function. The result may be cached and evaluated against any frame of
+    // that function, so it must not capture frame or memory state.
+    default IExpression compileExpression(IFunction function, String expression) {
+        throw new NotImplementedException("expression evaluation is not supported by this execution engine");
+    }
 }
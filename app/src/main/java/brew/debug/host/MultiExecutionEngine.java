@@ -2,7 +2,9 @@ package brew.debug.host;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class MultiExecutionEngine extends ExecutionEngine {
     private Map<String, ExecutionEngine> enginesByFileExtension = new HashMap<>();
@@ -37,16 +39,31 @@ public class MultiExecutionEngine extends ExecutionEngine {
         getEngine(file).compileFile(file);
     }
 
+    @Override
+    public List<IFunction> recompileFile(File file, Set<IFunction> activeFunctions) {
+        return getEngine(file).recompileFile(file, activeFunctions);
+    }
+
     @Override
     public IFunction resolveFunction(File file, int lineNumber) {
         return getEngine(file).resolveFunction(file, lineNumber);
     }
 
+    @Override
+    public List<? extends IFunction> getFunctions(File file) {
+        return getEngine(file).getFunctions(file);
+    }
+
     @Override
     public IThread startThread(File file, String entryPoint, Console console) {
         return getEngine(file).startThread(file, entryPoint, console);
     }
 
+    @Override
+    public String getEntryPoint(File file) {
+        return getEngine(file).getEntryPoint(file);
+    }
+
     @Override
     public boolean isInternalFile(File file) {
         return getEngine(file).isInternalFile(file);
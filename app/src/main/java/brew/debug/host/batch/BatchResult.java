@@ -0,0 +1,51 @@
+package brew.debug.host.batch;
+
+import java.io.File;
+
+public class BatchResult {
+    public enum Status {
+        Exited,
+        CompileError,
+        VMError,
+        InternalError,
+        InstructionLimitExceeded,
+        TimeLimitExceeded,
+        OutputLimitExceeded
+    }
+
+    private final File file;
+    private final Status status;
+    private final String output;
+    private final long instructionCount;
+    private final Throwable exception;
+
+    public BatchResult(File file, Status status, String output, long instructionCount, Throwable exception) {
+        this.file = file;
+        this.status = status;
+        this.output = output;
+        this.instructionCount = instructionCount;
+        this.exception = exception;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    // The VMException for VMError, the compiler's exception for CompileError, the exception or error for
+    // InternalError, and null if the program wasn't stopped by an exception
+    public Throwable getException() {
+        return exception;
+    }
+}
@@ -0,0 +1,173 @@
+package brew.debug.host.batch;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import brew.debug.host.Console;
+import brew.debug.host.ExecutionEngine;
+import brew.debug.host.IThread;
+import brew.debug.host.VMException;
+import brew.debug.host.batch.BatchResult.Status;
+
+// Runs programs to completion with no debugger attached. Each program gets its own engine from the factory, since
+// engines hold the compiled code, so programs can run concurrently. The time limit only covers running a program,
+// not compiling it.
+public class BatchRunner {
+    public static final long NO_LIMIT = -1;
+    public static final int DEFAULT_MAX_OUTPUT = 1 << 20;
+
+    // The clock is only read every this many instructions to keep it off the step loop
+    private static final int TIME_CHECK_INTERVAL = 1024;
+
+    private Supplier<? extends ExecutionEngine> engineFactory;
+    private long maxInstructions;
+    private long maxNanos;
+    private int maxOutput;
+
+    public BatchRunner(Supplier<? extends ExecutionEngine> engineFactory, long maxInstructions, Duration timeLimit) {
+        this(engineFactory, maxInstructions, timeLimit, DEFAULT_MAX_OUTPUT);
+    }
+
+    // maxOutput is the number of characters of console output kept before the program is stopped
+    public BatchRunner(Supplier<? extends ExecutionEngine> engineFactory, long maxInstructions, Duration timeLimit,
+            int maxOutput) {
+        this.engineFactory = engineFactory;
+        this.maxInstructions = maxInstructions;
+        this.maxNanos = timeLimit == null ? NO_LIMIT : timeLimit.toNanos();
+        this.maxOutput = maxOutput;
+    }
+
+    public BatchResult run(File file) {
+        return run(file, engine -> engine.compileFile(file));
+    }
+
+    public BatchResult run(File file, String code) {
+        return run(file, engine -> engine.compileFile(file, code));
+    }
+
+    // Runs every file on its own virtual thread and returns the results in the same order
+    public List<BatchResult> runAll(List<File> files) {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            return runAll(files, executor);
+        }
+    }
+
+    // Runs every file on the given executor, e.g. a fixed pool to bound concurrency, and returns the results in the
+    // same order. The executor is not shut down.
+    public List<BatchResult> runAll(List<File> files, ExecutorService executor) {
+        List<Future<BatchResult>> futures = new ArrayList<>();
+        for (File file : files) {
+            futures.add(executor.submit(() -> run(file)));
+        }
+
+        List<BatchResult> results = new ArrayList<>();
+        for (Future<BatchResult> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                // run() turns every failure into a result, so this is a bug in the runner itself
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private BatchResult run(File file, Consumer<ExecutionEngine> compiler) {
+        CappedOutput output = new CappedOutput(maxOutput);
+
+        ExecutionEngine engine;
+        try {
+            engine = engineFactory.get();
+        } catch (Exception | Error e) {
+            // Not the program's fault
+            return new BatchResult(file, Status.InternalError, output.toString(), 0, e);
+        }
+
+        try {
+            compiler.accept(engine);
+        } catch (Exception e) {
+            return new BatchResult(file, Status.CompileError, output.toString(), 0, e);
+        } catch (Error e) {
+            // Errors such as a StackOverflowError from a recursive compiler only fail this program
+            return new BatchResult(file, Status.InternalError, output.toString(), 0, e);
+        }
+
+        long instructionCount = 0;
+        try {
+            IThread thread = engine.startThread(file, engine.getEntryPoint(file), output);
+
+            long startTime = System.nanoTime();
+            while (true) {
+                if (maxInstructions != NO_LIMIT && instructionCount >= maxInstructions) {
+                    return new BatchResult(file, Status.InstructionLimitExceeded, output.toString(),
+                            instructionCount, null);
+                }
+                if (maxNanos != NO_LIMIT && instructionCount % TIME_CHECK_INTERVAL == 0
+                        && System.nanoTime() - startTime > maxNanos) {
+                    return new BatchResult(file, Status.TimeLimitExceeded, output.toString(), instructionCount,
+                            null);
+                }
+
+                boolean running = thread.step();
+                instructionCount++;
+                if (output.isFull()) {
+                    return new BatchResult(file, Status.OutputLimitExceeded, output.toString(), instructionCount,
+                            null);
+                }
+                if (!running) {
+                    break;
+                }
+            }
+        } catch (VMException e) {
+            return new BatchResult(file, Status.VMError, output.toString(), instructionCount, e);
+        } catch (Exception | Error e) {
+            return new BatchResult(file, Status.InternalError, output.toString(), instructionCount, e);
+        }
+
+        return new BatchResult(file, Status.Exited, output.toString(), instructionCount, null);
+    }
+
+    // Keeps console output up to a limit, so a print loop can't exhaust the heap before the other limits trigger
+    private static class CappedOutput implements Console {
+        private StringBuilder output = new StringBuilder();
+        private int maxLength;
+        private boolean full;
+
+        CappedOutput(int maxLength) {
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public void printString(String msg) {
+            if (full) {
+                return;
+            }
+            if (output.length() + msg.length() + 1 > maxLength) {
+                output.append(msg, 0, Math.max(0, Math.min(msg.length(), maxLength - output.length())));
+                full = true;
+                return;
+            }
+            output.append(msg).append('\n');
+        }
+
+        boolean isFull() {
+            return full;
+        }
+
+        @Override
+        public String toString() {
+            return output.toString();
+        }
+    }
+}
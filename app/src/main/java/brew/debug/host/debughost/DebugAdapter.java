@@ -22,6 +22,7 @@ import com.microsoft.java.debug.core.protocol.Requests.Command;
 import com.microsoft.java.debug.core.protocol.Requests.DisassembleArguments;
 import com.microsoft.java.debug.core.protocol.Requests.DisassembledInstruction;
 import com.microsoft.java.debug.core.protocol.Requests.DisconnectArguments;
+import com.microsoft.java.debug.core.protocol.Requests.EvaluateArguments;
 import com.microsoft.java.debug.core.protocol.Requests.LaunchArguments;
 import com.microsoft.java.debug.core.protocol.Requests.NextArguments;
 import com.microsoft.java.debug.core.protocol.Requests.ReadMemoryArguments;
@@ -40,13 +41,17 @@ import com.microsoft.java.debug.core.protocol.Types.Breakpoint;
 import com.microsoft.java.debug.core.protocol.Types.Capabilities;
 import com.microsoft.java.debug.core.protocol.Types.InstructionBreakpoint;
 import com.microsoft.java.debug.core.protocol.Types.Source;
+import com.microsoft.java.debug.core.protocol.Types.Variable;
 
 import brew.debug.host.ExecutionEngine;
 import brew.debug.host.HostThread;
 import brew.debug.host.IFunction;
 import brew.debug.host.IStackFrame;
+import brew.debug.host.trace.TraceRecorder;
 
 public class DebugAdapter implements IVMDebugAdapter {
+    public static final String HOT_CODE_REPLACE = "hotCodeReplace";
+    public static final String DUMP_TRACE = "dumpTrace";
 
     private IProtocolServer ps;
     private HostThread hostThread;
@@ -86,6 +91,9 @@ public class DebugAdapter implements IVMDebugAdapter {
         // TODO: Read whole spec
         // TODO: Launch java
         System.out.println("Command: " + command + " " + request.command);
+        if (command == Command.UNSUPPORTED) {
+            return dispatchCustomRequest(request, response);
+        }
         switch (command) {
             case INITIALIZE -> {
                 // This is because of a bug in https://github.com/microsoft/java-debug
@@ -111,10 +119,22 @@ public class DebugAdapter implements IVMDebugAdapter {
                 }
 
                 hostThread.verifyBreakpoints();
+                // Custom launch arguments, so they're read from the raw JSON
+                if (JsonUtils.getBoolean(request.arguments, "trace", false)) {
+                    String traceFile = JsonUtils.getString(request.arguments, "traceFile", null);
+                    try {
+                        hostThread.enableTrace(
+                                JsonUtils.getInt(request.arguments, "traceSize", TraceRecorder.DEFAULT_CAPACITY),
+                                traceFile != null ? new File(traceFile) : null);
+                    } catch (IllegalArgumentException e) {
+                        return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.LAUNCH_FAILURE,
+                                "Bad traceSize: " + e.getMessage());
+                    }
+                }
                 if (la.stopOnEntry) {
                     hostThread.stopOnEntry();
                 }
-                new Thread(hostThread).start();
+                hostThread.start();
                 launched = true;
             }
             case THREADS ->
@@ -131,17 +151,31 @@ public class DebugAdapter implements IVMDebugAdapter {
                 response.body = new Responses.VariablesResponseBody(
                         hostThread.getVariables(varArgs.variablesReference));
             }
-            // case EVALUATE -> {
-            //     var evArgs = (EvaluateArguments) cmdArgs;
+            case EVALUATE -> {
+                var evArgs = (EvaluateArguments) cmdArgs;
+                if (!hostThread.isSuspended()) {
+                    return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.EVALUATE_NOT_SUSPENDED_THREAD,
+                            "Expressions can only be evaluated while the program is paused");
+                }
 
-            // }
+                Variable result;
+                try {
+                    result = hostThread.evaluate(evArgs.frameId, evArgs.expression, evArgs.context);
+                } catch (Exception e) {
+                    return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.EVALUATE_FAILURE, e.getMessage());
+                }
+                if (result == null) {
+                    return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.EVALUATE_FAILURE,
+                            "Expression has no value: " + evArgs.expression);
+                }
+                response.body = new Responses.EvaluateResponseBody(result.value, result.variablesReference,
+                        result.type, result.indexedVariables);
+            }
             case SETBREAKPOINTS -> {
-                var bpts = hostThread.setBreakpoints((SetBreakpointArguments) cmdArgs);
+                var sba = (SetBreakpointArguments) cmdArgs;
+                // Once launched, the response carries the breakpoints' verified state, unless the program is running
+                var bpts = hostThread.setBreakpoints(sba, launched);
                 response.body = new Responses.SetBreakpointsResponseBody(bpts);
-
-                if (launched) {
-                    hostThread.verifyBreakpoints();
-                }
             }
             case SETINSTRUCTIONBREAKPOINTS -> {
                 InstructionBreakpoint[] breakpoints = ((SetInstructionBreakpointsArguments) cmdArgs).breakpoints;
@@ -160,9 +194,17 @@ public class DebugAdapter implements IVMDebugAdapter {
                 response.body = new Responses.DisassembleResponse(instructions);
             }
             case READMEMORY -> response.body = hostThread.readMemory((ReadMemoryArguments) cmdArgs);
-            case WRITEMEMORY -> response.body = hostThread.writeMemory((WriteMemoryArguments) cmdArgs);
+            case WRITEMEMORY -> {
+                if (!hostThread.isSuspended()) {
+                    return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.UNKNOWN_FAILURE,
+                            "Memory can only be written while the program is paused");
+                }
+                response.body = hostThread.writeMemory((WriteMemoryArguments) cmdArgs);
+            }
             case CONTINUE ->
                 hostThread.continueExecution();
+            case PAUSE ->
+                hostThread.pause();
             case NEXT ->
                 hostThread.next(((NextArguments) cmdArgs).granularity);
             case STEPIN ->
@@ -189,6 +231,55 @@ public class DebugAdapter implements IVMDebugAdapter {
         return CompletableFuture.completedFuture(response);
     }
 
+    private CompletableFuture<Messages.Response> dispatchCustomRequest(Messages.Request request,
+            Messages.Response response) {
+        switch (request.command) {
+            case HOT_CODE_REPLACE -> {
+                // HostThread holds its lock while the program runs, so only replace code at a stop
+                if (!launched || !hostThread.isSuspended()) {
+                    return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.HCR_FAILURE,
+                            "Hot code replace can only be done while the program is paused");
+                }
+
+                var hcr = JsonUtils.fromJson(request.arguments, HotCodeReplaceArguments.class);
+                try {
+                    hostThread.hotCodeReplace(new File(hcr.source.path));
+                } catch (Exception e) {
+                    e.printStackTrace();
+
+                    ps.sendEvent(new OutputEvent(Category.stderr, getStackTrace(e)));
+                    return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.HCR_FAILURE, e.getMessage());
+                }
+            }
+            case DUMP_TRACE -> {
+                if (!hostThread.isTracing()) {
+                    return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.UNKNOWN_FAILURE,
+                            "Tracing is not enabled; launch with \"trace\": true");
+                }
+                // HostThread holds its lock while the program runs, so only dump at a stop
+                if (!hostThread.isSuspended()) {
+                    return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.UNKNOWN_FAILURE,
+                            "The trace can only be dumped while the program is paused");
+                }
+
+                try {
+                    List<String> lines = hostThread.dumpTrace();
+                    response.body = new TraceDumpResponseBody(hostThread.getTraceFile().getAbsolutePath(), lines);
+                } catch (Exception e) {
+                    return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.UNKNOWN_FAILURE, e.getMessage());
+                }
+            }
+            default -> {
+                System.out.println("Unsupported command: " + request.command);
+                final String errorMessage = String.format("Unrecognized request: { _request: %s }", request.command);
+                return AdapterUtils.createAsyncErrorResponse(response, ErrorCode.UNRECOGNIZED_REQUEST_FAILURE,
+                        errorMessage);
+            }
+        }
+
+        return CompletableFuture.completedFuture(response);
+    }
+
     private Capabilities getCapabilities() {
         var cap = new Capabilities();
         cap.supportTerminateDebuggee = true;
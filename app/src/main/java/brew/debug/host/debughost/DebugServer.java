@@ -1,6 +1,9 @@
 package brew.debug.host.debughost;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 
@@ -9,13 +12,17 @@ import com.microsoft.java.debug.core.adapter.ProtocolServer;
 import brew.debug.host.ExecutionEngine;
 
 public class DebugServer {
+    public static final int DEFAULT_PORT = 8888;
+
     public void start(ExecutionEngine engine) throws IOException {
-        try (ServerSocket ss = new ServerSocket(8888)) {
+        start(engine, DEFAULT_PORT);
+    }
+
+    public void start(ExecutionEngine engine, int port) throws IOException {
+        try (ServerSocket ss = new ServerSocket(port)) {
             while (true) {
                 Socket conn = ss.accept();
-                ProtocolServer ps = new ProtocolServer(conn.getInputStream(), conn.getOutputStream(),
-                        aps -> new DebugAdapter(aps, engine));
-                ps.run();
+                run(engine, conn.getInputStream(), conn.getOutputStream());
             }
         } catch (Exception e) {
             // TODO: handle exception
@@ -23,4 +30,18 @@ public class DebugServer {
         }
 
     }
+
+    // Runs a single session over stdin/stdout, for IDEs that spawn the debug host directly
+    public void startStdio(ExecutionEngine engine) {
+        // stdout carries the protocol, so anything else printed to it goes to stderr instead
+        PrintStream protocolOut = System.out;
+        System.setOut(System.err);
+        run(engine, System.in, protocolOut);
+    }
+
+    // Runs a single session until the input is closed
+    public void run(ExecutionEngine engine, InputStream in, OutputStream out) {
+        ProtocolServer ps = new ProtocolServer(in, out, aps -> new DebugAdapter(aps, engine));
+        ps.run();
+    }
 }
@@ -0,0 +1,8 @@
+package brew.debug.host.debughost;
+
+import com.microsoft.java.debug.core.protocol.Requests.Arguments;
+import com.microsoft.java.debug.core.protocol.Types.Source;
+
+public class HotCodeReplaceArguments extends Arguments {
+    public Source source;
+}
@@ -0,0 +1,15 @@
+package brew.debug.host.debughost;
+
+import java.util.List;
+
+import com.microsoft.java.debug.core.protocol.Responses.ResponseBody;
+
+public class TraceDumpResponseBody extends ResponseBody {
+    public String path;
+    public List<String> lines;
+
+    public TraceDumpResponseBody(String path, List<String> lines) {
+        this.path = path;
+        this.lines = lines;
+    }
+}
@@ -0,0 +1,64 @@
+package brew.debug.host.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import brew.debug.host.HostThread;
+
+// Turns a trace file written by TraceRecorder back into source lines. The file is self-contained, so this also works
+// after the session that wrote it has ended.
+public class TraceDecoder {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: TraceDecoder <trace file>");
+            System.exit(2);
+        }
+        for (String line : decode(new File(args[0]))) {
+            System.out.println(line);
+        }
+    }
+
+    // Reads the whole file onto the heap rather than mapping it, so it isn't left mapped and can be written again
+    public static List<String> decode(File traceFile) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(traceFile.toPath()));
+        if (in.remaining() < TraceRecorder.HEADER_SIZE || in.getInt() != TraceRecorder.MAGIC) {
+            throw new IOException("Not a trace file: " + traceFile);
+        }
+        int version = in.getInt();
+        if (version != TraceRecorder.VERSION) {
+            throw new IOException("Unsupported trace file version " + version + ": " + traceFile);
+        }
+
+        int functionCount = in.getInt();
+        int size = in.getInt();
+        String[] functionFiles = new String[functionCount];
+        String[] functionNames = new String[functionCount];
+        for (int i = 0; i < functionCount; i++) {
+            functionFiles[i] = new File(readString(in)).getName();
+            functionNames[i] = readString(in);
+        }
+
+        List<String> lines = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int functionId = in.getInt();
+            int sourceLine = in.getInt();
+            int address = in.getInt();
+            int depth = in.getInt();
+
+            lines.add(String.format("%s %s:%d %s (depth %d)", HostThread.formatAddress(address),
+                    functionFiles[functionId], sourceLine, functionNames[functionId], depth));
+        }
+        return lines;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
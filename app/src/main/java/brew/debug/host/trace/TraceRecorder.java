@@ -0,0 +1,141 @@
+package brew.debug.host.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import brew.debug.host.IFunction;
+import brew.debug.host.IStackFrame;
+
+// Records the last executed instructions in an off-heap ring buffer. Recording doesn't allocate, except the first
+// time a function is seen.
+public class TraceRecorder {
+    public static final int DEFAULT_CAPACITY = 4096;
+    // 64 MB of entries
+    public static final int MAX_CAPACITY = 1 << 22;
+
+    // A trace file is a header (magic number, version, function count, entry count), a function table (file path
+    // and display name per function id, each as a length and UTF-8 bytes) and the entries (function id, source line,
+    // program counter address, call depth). It can be decoded without the session that wrote it.
+    static final int MAGIC = 0x42525452;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    // Function id, program counter (a source line in the file), program counter address and call depth
+    static final int ENTRY_SIZE = 16;
+    // Entries are written through a heap buffer of this many bytes. A mapped buffer would keep the file mapped
+    // until it's garbage collected, and on Windows a mapped file can't be written again.
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private ByteBuffer entries;
+    private int capacity;
+    private int next;
+    private boolean full;
+    private List<IFunction> functions = new ArrayList<>();
+    private Map<IFunction, Integer> functionIds = new IdentityHashMap<>();
+    private IFunction lastFunction;
+    private int lastFunctionId;
+
+    public TraceRecorder(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Trace capacity must be between 1 and " + MAX_CAPACITY + ": " + capacity);
+        }
+        this.capacity = capacity;
+        entries = ByteBuffer.allocateDirect(capacity * ENTRY_SIZE);
+    }
+
+    public void record(Stack<? extends IStackFrame> callStack) {
+        IStackFrame frame = callStack.peek();
+        IFunction function = frame.getFunction();
+        if (function != lastFunction) {
+            lastFunctionId = getFunctionId(function);
+            lastFunction = function;
+        }
+
+        int offset = next * ENTRY_SIZE;
+        entries.putInt(offset, lastFunctionId);
+        entries.putInt(offset + 4, frame.getProgramCounter());
+        entries.putInt(offset + 8, frame.getProgramCounterAddress());
+        entries.putInt(offset + 12, callStack.size());
+
+        if (++next == capacity) {
+            next = 0;
+            full = true;
+        }
+    }
+
+    private int getFunctionId(IFunction function) {
+        Integer id = functionIds.get(function);
+        if (id == null) {
+            id = functions.size();
+            functions.add(function);
+            functionIds.put(function, id);
+        }
+        return id;
+    }
+
+    public int size() {
+        return full ? capacity : next;
+    }
+
+    // Writes the function table and the recorded entries, oldest first, with program counters resolved to source
+    // lines
+    public void dump(File file) throws IOException {
+        List<byte[]> functionTable = new ArrayList<>();
+        int functionTableSize = 0;
+        for (IFunction function : functions) {
+            for (String s : new String[] { function.getFile().getPath(), function.getDisplayName() }) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                functionTable.add(bytes);
+                functionTableSize += 4 + bytes.length;
+            }
+        }
+
+        int size = size();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + functionTableSize);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(functions.size());
+            header.putInt(size);
+            for (byte[] bytes : functionTable) {
+                header.putInt(bytes.length);
+                header.put(bytes);
+            }
+            write(channel, header);
+
+            ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+            int start = full ? next : 0;
+            for (int i = 0; i < size; i++) {
+                if (out.remaining() < ENTRY_SIZE) {
+                    write(channel, out);
+                }
+                int offset = (start + i) % capacity * ENTRY_SIZE;
+                int functionId = entries.getInt(offset);
+                out.putInt(functionId);
+                out.putInt(functions.get(functionId).getSourceLine(entries.getInt(offset + 4)));
+                out.putInt(entries.getInt(offset + 8));
+                out.putInt(entries.getInt(offset + 12));
+            }
+            write(channel, out);
+            channel.force(false);
+        }
+    }
+
+    // Writes everything put into the buffer and clears it
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,159 @@
+package brew.debug.host.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import brew.debug.host.ExecutionEngine;
+import brew.debug.host.MultiExecutionEngine;
+import brew.debug.host.debughost.DebugAdapter;
+import brew.debug.host.debughost.DebugServer;
+
+public class Launcher {
+    private static final String USAGE = """
+            Usage: brew-debug-host [options]
+              --port <port>               Listen for DAP connections on a TCP port (default %d)
+              --stdio                     Run a single DAP session over stdin/stdout
+              --engine-path <path>        Jars or class directories to load engines from, separated by '%s'.
+                                          Can be repeated.
+              --engine <ext>=<class>      Use an ExecutionEngine class for files with an extension. Can be repeated.
+                                          The class must be on the engine path and have a no-arg constructor.
+              --train                     Run a scripted session and exit, to build the class data sharing archive
+              --train-program <file>      Launch, step and run this program in the training session, so the archive
+                                          also covers the engines and a real debug session
+            """.formatted(DebugServer.DEFAULT_PORT, File.pathSeparator);
+
+    private static final long TRAINING_TIMEOUT_SECONDS = 60;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = DebugServer.DEFAULT_PORT;
+        boolean stdio = false;
+        boolean train = false;
+        File trainingProgram = null;
+        List<URL> enginePath = new ArrayList<>();
+        Map<String, String> engineClassesByExtension = new LinkedHashMap<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port" -> port = Integer.parseInt(nextArg(args, ++i));
+                case "--stdio" -> stdio = true;
+                case "--train" -> train = true;
+                case "--train-program" -> trainingProgram = new File(nextArg(args, ++i));
+                case "--engine-path" -> {
+                    for (String entry : nextArg(args, ++i).split(File.pathSeparator)) {
+                        if (!entry.isEmpty()) {
+                            enginePath.add(toURL(new File(entry)));
+                        }
+                    }
+                }
+                case "--engine" -> {
+                    String spec = nextArg(args, ++i);
+                    int equalsIndex = spec.indexOf('=');
+                    if (equalsIndex == -1) {
+                        usage("Engine must be given as <ext>=<class>: " + spec);
+                    }
+                    engineClassesByExtension.put(spec.substring(0, equalsIndex), spec.substring(equalsIndex + 1));
+                }
+                case "--help", "-h" -> {
+                    System.out.print(USAGE);
+                    return;
+                }
+                default -> usage("Unknown option: " + args[i]);
+            }
+        }
+
+        // The start scripts fix the class path, so engines are loaded from their own class loader
+        ClassLoader engineLoader = new URLClassLoader(enginePath.toArray(new URL[0]), Launcher.class.getClassLoader());
+        MultiExecutionEngine engine = new MultiExecutionEngine();
+        for (var entry : engineClassesByExtension.entrySet()) {
+            engine.register(entry.getKey(), createEngine(entry.getValue(), engineLoader));
+        }
+
+        DebugServer server = new DebugServer();
+        if (train) {
+            if (trainingProgram != null && engineClassesByExtension.isEmpty()) {
+                usage("--train-program needs an --engine to run it");
+            }
+            train(server, engine, trainingProgram);
+            return;
+        }
+
+        if (engineClassesByExtension.isEmpty()) {
+            usage("At least one --engine is required");
+        }
+
+        if (stdio) {
+            server.startStdio(engine);
+            // The session is over once the IDE closes stdin, but the program's thread may still be around
+            System.exit(0);
+        } else {
+            server.start(engine, port);
+        }
+    }
+
+    private static void train(DebugServer server, ExecutionEngine engine, File program) throws InterruptedException {
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread session = new Thread(() -> {
+            try {
+                new TrainingSession().run(server, engine, program);
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        }, "training-session");
+        session.setDaemon(true);
+        session.start();
+        session.join(TimeUnit.SECONDS.toMillis(TRAINING_TIMEOUT_SECONDS));
+
+        if (session.isAlive()) {
+            System.err.println("Training session didn't finish in " + TRAINING_TIMEOUT_SECONDS + " seconds");
+            System.exit(1);
+        }
+        if (failure.get() != null) {
+            System.err.println("Training session failed: " + DebugAdapter.getStackTrace(failure.get()));
+            System.exit(1);
+        }
+        // The program's thread may still be around, so exit explicitly. The archive is written at exit.
+        System.exit(0);
+    }
+
+    private static ExecutionEngine createEngine(String className, ClassLoader loader) {
+        try {
+            return Class.forName(className, true, loader).asSubclass(ExecutionEngine.class).getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new RuntimeException("Can't create execution engine " + className, e);
+        }
+    }
+
+    private static URL toURL(File file) {
+        if (!file.exists()) {
+            usage("Engine path entry doesn't exist: " + file);
+        }
+        try {
+            return file.toURI().toURL();
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String nextArg(String[] args, int i) {
+        if (i >= args.length) {
+            usage("Missing value for " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.print(USAGE);
+        System.exit(2);
+    }
+}
@@ -0,0 +1,136 @@
+package brew.debug.host.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import brew.debug.host.ExecutionEngine;
+import brew.debug.host.debughost.DebugServer;
+
+// A scripted DAP client used for the class data sharing training run. With a program it launches, inspects, steps
+// and continues it, so the archive covers the engine and the classes of a real session. Without one it only
+// exercises the adapter, Gson and RxJava.
+class TrainingSession {
+    private static final Pattern STOPPED_OR_TERMINATED = Pattern.compile("\"event\":\"(stopped|terminated)\"");
+    // A stopped program gets this many continues before the session gives up on it running to the end
+    private static final int MAX_CONTINUES = 10;
+
+    private OutputStream requests;
+    private InputStream responses;
+    private int nextSeq = 1;
+
+    void run(DebugServer server, ExecutionEngine engine, File program) throws IOException {
+        // NIO pipes rather than piped streams, which fail once the thread that last wrote to them exits, and events
+        // are written from the program's thread
+        Pipe toServer = Pipe.open();
+        Pipe fromServer = Pipe.open();
+        requests = Channels.newOutputStream(toServer.sink());
+        responses = Channels.newInputStream(fromServer.source());
+        InputStream serverIn = Channels.newInputStream(toServer.source());
+        OutputStream serverOut = Channels.newOutputStream(fromServer.sink());
+
+        Thread serverThread = new Thread(() -> {
+            server.run(engine, serverIn, serverOut);
+            try {
+                serverOut.close();
+            } catch (IOException e) {
+                // Expected if the client is gone
+            }
+        }, "training-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        request("initialize", "{\"adapterID\":\"brew\"}");
+        if (program == null) {
+            request("setBreakpoints", "{\"source\":{\"path\":\"Main.brw\"},\"breakpoints\":[{\"line\":1}]}");
+            request("threads", "{}");
+            request("disconnect", "{\"terminateDebuggee\":false}");
+        } else {
+            String path = jsonString(program.getAbsolutePath());
+            request("setBreakpoints", "{\"source\":{\"path\":" + path + "},\"breakpoints\":[{\"line\":1}]}");
+            send("launch", "{\"projectName\":" + path + ",\"cwd\":" + jsonString(program.getAbsoluteFile().getParent())
+                    + ",\"stopOnEntry\":true}");
+            boolean terminated = waitForStop();
+            if (!terminated) {
+                request("threads", "{}");
+                request("stackTrace", "{\"threadId\":1,\"startFrame\":0,\"levels\":20}");
+                request("scopes", "{\"frameId\":1}");
+                send("next", "{\"threadId\":1,\"granularity\":\"line\"}");
+                terminated = waitForStop();
+            }
+            for (int i = 0; !terminated && i < MAX_CONTINUES; i++) {
+                send("continue", "{\"threadId\":1}");
+                terminated = waitForStop();
+            }
+            request("disconnect", "{\"terminateDebuggee\":true}");
+        }
+
+        requests.close();
+    }
+
+    private void request(String command, String arguments) throws IOException {
+        int seq = send(command, arguments);
+        Pattern response = Pattern.compile("\"request_seq\":" + seq + "\\b");
+        while (!response.matcher(readMessage()).find()) {
+            // Skip events and other responses
+        }
+    }
+
+    private int send(String command, String arguments) throws IOException {
+        int seq = nextSeq++;
+        String json = "{\"seq\":" + seq + ",\"type\":\"request\",\"command\":\"" + command + "\",\"arguments\":"
+                + arguments + "}";
+        byte[] content = json.getBytes(StandardCharsets.UTF_8);
+        requests.write(("Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        requests.write(content);
+        requests.flush();
+        return seq;
+    }
+
+    // Returns true if the program terminated rather than stopped
+    private boolean waitForStop() throws IOException {
+        while (true) {
+            var matcher = STOPPED_OR_TERMINATED.matcher(readMessage());
+            if (matcher.find()) {
+                return matcher.group(1).equals("terminated");
+            }
+        }
+    }
+
+    private String readMessage() throws IOException {
+        int contentLength = -1;
+        String header;
+        while (!(header = readLine()).isEmpty()) {
+            if (header.startsWith("Content-Length:")) {
+                contentLength = Integer.parseInt(header.substring("Content-Length:".length()).trim());
+            }
+        }
+        if (contentLength < 0) {
+            throw new IOException("Message has no Content-Length header");
+        }
+        return new String(responses.readNBytes(contentLength), StandardCharsets.UTF_8);
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = responses.read()) != '\n') {
+            if (c == -1) {
+                throw new IOException("Debug server closed the session");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static String jsonString(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}